@@ -1,6 +1,8 @@
 package at.schmutterer.oss.liquibase;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +14,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import liquibase.changelog.ChangeLogParameters;
 import liquibase.changelog.ChangeSet;
 import liquibase.changelog.DatabaseChangeLog;
@@ -26,6 +29,7 @@ public class ChangelogCollection {
 
     private final SortedMap<String, List<ChangeSet>> map;
     private final List<ChangeSet> allChangesets;
+    private List<String> prefixChecksums;
 
     public ChangelogCollection(SortedMap<String, List<ChangeSet>> map) {
         this.map = map;
@@ -48,6 +52,35 @@ public class ChangelogCollection {
         return Iterables.indexOf(allChangesets, c -> c.getId().equals(changeId));
     }
 
+    public List<ChangeSet> getChangeSets() {
+        return Collections.unmodifiableList(allChangesets);
+    }
+
+    public List<ChangeSet> getChangeSets(String resource) {
+        return Collections.unmodifiableList(map.get(resource));
+    }
+
+    /**
+     * checksum identifying the first {@code length} changesets (ids, authors, files and contents) in the order of this
+     * collection. Each checksum is chained to the one of the shorter prefix, so all of them are computed in one pass.
+     */
+    public synchronized String getPrefixChecksum(int length) {
+        if (prefixChecksums == null) {
+            prefixChecksums = new ArrayList<>();
+            String checksum = "";
+            prefixChecksums.add(checksum);
+            for (ChangeSet changeSet : allChangesets) {
+                checksum = Hashing.sha256().hashString(
+                    checksum + "|" + changeSet.getFilePath() + "|" + changeSet.getId() + "|" + changeSet.getAuthor()
+                        + "|" + changeSet.generateCheckSum(),
+                    StandardCharsets.UTF_8
+                ).toString();
+                prefixChecksums.add(checksum);
+            }
+        }
+        return prefixChecksums.get(length);
+    }
+
     public static ChangelogCollection forResources(List<String> r) throws LiquibaseException {
         ChangeLogParserFactory instance = ChangeLogParserFactory.getInstance();
         CompositeResourceAccessor resourceAccessor = new CompositeResourceAccessor(
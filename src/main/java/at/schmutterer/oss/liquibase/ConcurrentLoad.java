@@ -0,0 +1,263 @@
+package at.schmutterer.oss.liquibase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a read/write workload against the database while a migration runs and reports how the workload was affected
+ * ({@link LoadReport}), to see how much a changeset blocks the application during a deployment without downtime:
+ *
+ * <pre>
+ * LoadReport report = new ConcurrentLoad(dataSource)
+ *     .read("SELECT NAME FROM PERSON WHERE ID = 1")
+ *     .write("UPDATE PERSON SET AGE = AGE + 1 WHERE ID = 1")
+ *     .during(this::runNextChange);
+ * report.assertPercentileBelow(99, 200, TimeUnit.MILLISECONDS);
+ * </pre>
+ * <p>
+ * Every worker thread uses its own connection in autocommit mode and executes randomly chosen statements in a loop.
+ * Statements containing a parameter get a unique number bound to it, e.g. for inserts. Only statements started while
+ * the migration runs are reported. Statements failing with a lock timeout or deadlock and statements taking longer than
+ * the lock wait threshold count as lock waits, the latter because a statement blocked by the migration may still
+ * succeed once the lock is released.
+ */
+@Slf4j
+public class ConcurrentLoad {
+
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final AtomicLong SEQUENCE = new AtomicLong(System.currentTimeMillis());
+
+    private final DataSource dataSource;
+    private final List<String> reads = new ArrayList<>();
+    private final List<String> writes = new ArrayList<>();
+    private int threads = 4;
+    private int statementTimeout = 30;
+    private long lockWaitThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+
+    public interface Migration {
+        void run() throws Exception;
+    }
+
+    public ConcurrentLoad(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public ConcurrentLoad read(String sql) {
+        reads.add(sql);
+        return this;
+    }
+
+    public ConcurrentLoad write(String sql) {
+        writes.add(sql);
+        return this;
+    }
+
+    public ConcurrentLoad withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * the query timeout of the workload statements in seconds, statements running into it count as lock waits.
+     */
+    public ConcurrentLoad withStatementTimeout(int seconds) {
+        this.statementTimeout = seconds;
+        return this;
+    }
+
+    /**
+     * the latency from which a successful statement counts as lock wait (default 1 second).
+     */
+    public ConcurrentLoad withLockWaitThreshold(long amount, TimeUnit unit) {
+        this.lockWaitThresholdNanos = unit.toNanos(amount);
+        return this;
+    }
+
+    public LoadReport during(Migration migration) throws Exception {
+        if (reads.isEmpty() && writes.isEmpty()) {
+            throw new IllegalStateException("no statements to run as workload");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "concurrent-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Window window = new Window();
+        CountDownLatch connected = new CountDownLatch(threads);
+        List<Future<Worker>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(new Worker(window, connected)));
+            }
+            if (!connected.await(statementTimeout, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("workload could not connect within " + statementTimeout + " seconds");
+            }
+            window.start = System.nanoTime();
+            try {
+                migration.run();
+            } finally {
+                window.end = System.nanoTime();
+                window.stopped = true;
+            }
+            return collect(window, workers);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private LoadReport collect(Window window, List<Future<Worker>> workers) throws Exception {
+        List<LatencyHistogram> readLatencies = new ArrayList<>();
+        List<LatencyHistogram> writeLatencies = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        long failureCount = 0;
+        long lockWaits = 0;
+        for (Future<Worker> future : workers) {
+            // workers finish their current statement, which is bounded by the statement timeout
+            Worker worker = future.get(statementTimeout + 10L, TimeUnit.SECONDS);
+            readLatencies.add(worker.readLatencies);
+            writeLatencies.add(worker.writeLatencies);
+            lockWaits += worker.lockWaits;
+            failureCount += worker.failureCount;
+            for (String failure : worker.failures) {
+                if (failures.size() < MAX_REPORTED_FAILURES && !failures.contains(failure)) {
+                    failures.add(failure);
+                }
+            }
+        }
+        return new LoadReport(
+            window.end - window.start,
+            LoadReport.Latencies.of(readLatencies),
+            LoadReport.Latencies.of(writeLatencies),
+            lockWaits,
+            failureCount,
+            failures
+        );
+    }
+
+    static boolean isLockWait(SQLException e) {
+        if (e instanceof SQLTimeoutException || e instanceof SQLTransactionRollbackException) {
+            return true;
+        }
+        String sqlState = e.getSQLState() == null ? "" : e.getSQLState();
+        String driver = e.getClass().getName();
+        if (sqlState.startsWith("HYT") || sqlState.equals("40001")) {
+            return true;
+        }
+        if (driver.startsWith("org.h2.")) {
+            // LOCK_TIMEOUT_1, DEADLOCK_1, STATEMENT_WAS_CANCELED
+            return e.getErrorCode() == 50200 || e.getErrorCode() == 40001 || e.getErrorCode() == 57014;
+        }
+        if (driver.startsWith("com.mysql.")) {
+            // ER_LOCK_WAIT_TIMEOUT, ER_LOCK_DEADLOCK
+            return e.getErrorCode() == 1205 || e.getErrorCode() == 1213;
+        }
+        if (driver.startsWith("oracle.")) {
+            // resource busy, user requested cancel (query timeout), deadlock
+            return e.getErrorCode() == 54 || e.getErrorCode() == 1013 || e.getErrorCode() == 60 || e.getErrorCode() == 30006;
+        }
+        return false;
+    }
+
+    private static class Window {
+        volatile long start = Long.MAX_VALUE;
+        volatile long end = Long.MAX_VALUE;
+        volatile boolean stopped;
+
+        boolean contains(long time) {
+            return time >= start && time <= end;
+        }
+    }
+
+    private class Worker implements Callable<Worker> {
+        private final Window window;
+        private final CountDownLatch connected;
+        private final LatencyHistogram readLatencies = new LatencyHistogram();
+        private final LatencyHistogram writeLatencies = new LatencyHistogram();
+        private final List<String> failures = new ArrayList<>();
+        private long lockWaits;
+        private long failureCount;
+
+        Worker(Window window, CountDownLatch connected) {
+            this.window = window;
+            this.connected = connected;
+        }
+
+        @Override
+        public Worker call() throws SQLException {
+            Connection opened;
+            try {
+                opened = dataSource.getConnection();
+            } finally {
+                connected.countDown();
+            }
+            try (Connection connection = opened) {
+                connection.setAutoCommit(true);
+                while (!window.stopped) {
+                    int choice = ThreadLocalRandom.current().nextInt(reads.size() + writes.size());
+                    boolean read = choice < reads.size();
+                    String sql = read ? reads.get(choice) : writes.get(choice - reads.size());
+                    long start = System.nanoTime();
+                    SQLException failure = execute(connection, sql);
+                    if (!window.contains(start)) {
+                        continue;
+                    }
+                    long latency = System.nanoTime() - start;
+                    (read ? readLatencies : writeLatencies).record(latency);
+                    if (failure == null) {
+                        if (latency >= lockWaitThresholdNanos) {
+                            lockWaits++;
+                        }
+                        continue;
+                    }
+                    if (isLockWait(failure)) {
+                        lockWaits++;
+                    } else {
+                        failureCount++;
+                        if (failures.size() < MAX_REPORTED_FAILURES) {
+                            failures.add(sql + ": " + failure.getMessage());
+                        }
+                    }
+                }
+            }
+            return this;
+        }
+
+        private SQLException execute(Connection connection, String sql) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setQueryTimeout(statementTimeout);
+                if (statement.getParameterMetaData().getParameterCount() > 0) {
+                    statement.setLong(1, SEQUENCE.incrementAndGet());
+                }
+                if (statement.execute()) {
+                    try (ResultSet resultSet = statement.getResultSet()) {
+                        while (resultSet.next()) {
+                            // read the whole result like the application would
+                        }
+                    }
+                }
+                return null;
+            } catch (SQLException e) {
+                log.debug("workload statement failed: {}", sql, e);
+                return e;
+            }
+        }
+    }
+
+}
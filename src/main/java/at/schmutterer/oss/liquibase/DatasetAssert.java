@@ -0,0 +1,364 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.sql.DataSource;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import liquibase.util.csv.CSVReader;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Compares the content of a table or query with an expected CSV file (same format as used by liquibase loadData, the
+ * first line contains the column names, {@code NULL} marks a null value). Both sides are streamed row by row, so the
+ * size of the compared data is not limited by the heap.
+ * <p>
+ * Both sides have to be sorted by the same key and are merged on it, so a missing or additional row is reported once
+ * instead of shifting all following rows. Tables are read ordered by their primary key (or all columns of the CSV file
+ * if the file does not contain the primary key), queries have to order themselves by the given key columns (all
+ * columns of the CSV file by default). Null values sort first: the databases differ here (H2 and mysql put them first,
+ * oracle last), so the generated ORDER BY asks for {@code NULLS FIRST} and queries on oracle have to do the same.
+ * Strings are ordered by {@link String#compareTo(String)}, which matches a binary collation.
+ * <p>
+ * Numbers are compared by value, independent of the type returned by the driver.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class DatasetAssert {
+
+    public static final int MAX_REPORTED_DIFFERENCES = 20;
+
+    private static final String NULL_VALUE = "NULL";
+    // databases understanding NULLS FIRST, mysql sorts nulls first anyway
+    private static final Set<String> NULLS_FIRST_DATABASES = ImmutableSet.of("Oracle", "H2", "PostgreSQL");
+
+    public static void assertTableContent(DataSource dataSource, String table, String expectedCsv) throws SQLException, IOException {
+        try (CSVReader expected = openCsv(expectedCsv);
+             Connection connection = dataSource.getConnection()) {
+            String[] columns = readHeader(expected, expectedCsv);
+            List<String> keyColumns = findPrimaryKey(connection, table, columns);
+            String nullsFirst = NULLS_FIRST_DATABASES.contains(connection.getMetaData().getDatabaseProductName()) ? " NULLS FIRST" : "";
+            String query = "SELECT " + Joiner.on(", ").join(columns) + " FROM " + table
+                + " ORDER BY " + Joiner.on(nullsFirst + ", ").join(keyColumns) + nullsFirst;
+            assertContent(connection, query, columns, keyColumns, expected, expectedCsv);
+        }
+    }
+
+    /**
+     * compares the result of the query, which has to be ordered by the key columns (all columns of the CSV file if none
+     * are given).
+     */
+    public static void assertQueryContent(DataSource dataSource, String query, String expectedCsv, String... keyColumns) throws SQLException, IOException {
+        try (CSVReader expected = openCsv(expectedCsv);
+             Connection connection = dataSource.getConnection()) {
+            String[] columns = readHeader(expected, expectedCsv);
+            assertContent(connection, query, columns, keyColumns.length == 0 ? trim(columns) : Arrays.asList(keyColumns), expected, expectedCsv);
+        }
+    }
+
+    private static String[] readHeader(CSVReader expected, String expectedCsv) throws IOException {
+        String[] columns = expected.readNext();
+        if (columns == null) {
+            throw new IllegalArgumentException(expectedCsv + " does not contain a header line");
+        }
+        return columns;
+    }
+
+    private static List<String> trim(String[] columns) {
+        List<String> result = new ArrayList<>();
+        for (String column : columns) {
+            result.add(column.trim());
+        }
+        return result;
+    }
+
+    /**
+     * the primary key columns of the table if they are all part of the CSV file, all columns of the file otherwise.
+     */
+    private static List<String> findPrimaryKey(Connection connection, String table, String[] columns) throws SQLException {
+        List<String> csvColumns = trim(columns);
+        Map<Short, String> primaryKey = new TreeMap<>();
+        try (ResultSet resultSet = connection.getMetaData().getPrimaryKeys(null, null, table)) {
+            while (resultSet.next()) {
+                primaryKey.put(resultSet.getShort("KEY_SEQ"), resultSet.getString("COLUMN_NAME"));
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (String keyColumn : primaryKey.values()) {
+            String csvColumn = Iterables.find(csvColumns, keyColumn::equalsIgnoreCase, null);
+            if (csvColumn == null) {
+                return csvColumns;
+            }
+            result.add(csvColumn);
+        }
+        return result.isEmpty() ? csvColumns : result;
+    }
+
+    private static void assertContent(Connection connection, String query, String[] columns, List<String> keyColumns, CSVReader expected, String expectedCsv) throws SQLException, IOException {
+        String failure = JdbcUtil.streamQuery(connection, query, resultSet -> compare(resultSet, columns, keyColumns, expected, expectedCsv));
+        if (failure != null) {
+            throw new AssertionError(failure);
+        }
+    }
+
+    /**
+     * merges both sides on the key columns and returns the differences as failure message, null if there are none. Only
+     * the side which is behind advances, so rows missing on one side do not affect the comparison of the following ones.
+     */
+    private static String compare(ResultSet resultSet, String[] columns, List<String> keyColumns, CSVReader expected, String expectedCsv) throws SQLException, IOException {
+        List<String> differences = new ArrayList<>();
+        long missing = 0;
+        long unexpected = 0;
+        long changed = 0;
+        long expectedRows = 0;
+        int[] columnIndexes = findColumnIndexes(resultSet.getMetaData(), columns);
+        int[] keyIndexes = findKeyIndexes(columns, keyColumns);
+        boolean hasActual = resultSet.next();
+        String[] expectedRow = readRow(expected, columns, expectedCsv);
+        while (hasActual || expectedRow != null) {
+            int order;
+            if (!hasActual) {
+                order = 1;
+            } else if (expectedRow == null) {
+                order = -1;
+            } else {
+                order = compareKey(resultSet, columnIndexes, keyIndexes, expectedRow);
+            }
+            String difference = null;
+            if (order < 0) {
+                unexpected++;
+                difference = "unexpected row " + describeRow(resultSet, columnIndexes);
+                hasActual = resultSet.next();
+            } else if (order > 0) {
+                missing++;
+                expectedRows++;
+                difference = "missing row " + Joiner.on(", ").join(expectedRow);
+                expectedRow = readRow(expected, columns, expectedCsv);
+            } else {
+                String rowDifference = compareRow(resultSet, columnIndexes, columns, expectedRow);
+                if (rowDifference != null) {
+                    changed++;
+                    difference = "changed row " + describeKey(expectedRow, keyIndexes) + ": " + rowDifference;
+                }
+                expectedRows++;
+                hasActual = resultSet.next();
+                expectedRow = readRow(expected, columns, expectedCsv);
+            }
+            if (difference != null && differences.size() < MAX_REPORTED_DIFFERENCES) {
+                differences.add(difference);
+            }
+        }
+        long differenceCount = missing + unexpected + changed;
+        if (differenceCount == 0) {
+            return null;
+        }
+        StringBuilder message = new StringBuilder()
+            .append("content differs from ").append(expectedCsv).append(" (").append(expectedRows).append(" rows): ")
+            .append(missing).append(" missing, ").append(unexpected).append(" unexpected, ").append(changed).append(" changed");
+        for (String difference : differences) {
+            message.append("\n  ").append(difference);
+        }
+        if (differenceCount > differences.size()) {
+            message.append("\n  ... and ").append(differenceCount - differences.size()).append(" more");
+        }
+        return message.toString();
+    }
+
+    private static String[] readRow(CSVReader expected, String[] columns, String expectedCsv) throws IOException {
+        String[] row = expected.readNext();
+        if (row != null && row.length != columns.length) {
+            throw new IllegalArgumentException("row " + Joiner.on(", ").join(row) + " of " + expectedCsv + " does not match the header");
+        }
+        return row;
+    }
+
+    private static int[] findKeyIndexes(String[] columns, List<String> keyColumns) {
+        int[] result = new int[keyColumns.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = -1;
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j].trim().equalsIgnoreCase(keyColumns.get(i).trim())) {
+                    result[i] = j;
+                    break;
+                }
+            }
+            if (result[i] == -1) {
+                throw new IllegalArgumentException("key column " + keyColumns.get(i) + " is not part of the dataset");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * orders the current row of the result against the expected one by the key columns, nulls first.
+     */
+    private static int compareKey(ResultSet resultSet, int[] columnIndexes, int[] keyIndexes, String[] expectedRow) throws SQLException, IOException {
+        for (int keyIndex : keyIndexes) {
+            int result = compareValue(resultSet.getObject(columnIndexes[keyIndex]), expectedRow[keyIndex]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareValue(Object actual, String expected) throws SQLException, IOException {
+        boolean expectedNull = NULL_VALUE.equalsIgnoreCase(expected);
+        if (actual == null || expectedNull) {
+            return Boolean.compare(actual != null, !expectedNull);
+        }
+        if (matches(actual, expected)) {
+            return 0;
+        }
+        if (actual instanceof Number) {
+            try {
+                return NumberUtils.toBigDecimal((Number) actual).compareTo(new BigDecimal(expected.trim()));
+            } catch (NumberFormatException e) {
+                // not comparable as numbers, fall back to the text
+            }
+        }
+        if (actual instanceof java.util.Date) {
+            try {
+                return Long.compare(((java.util.Date) actual).getTime(), Timestamp.valueOf(expected.trim()).getTime());
+            } catch (IllegalArgumentException e) {
+                // not a timestamp, fall back to the text
+            }
+        }
+        return toString(actual).compareTo(expected);
+    }
+
+    private static int[] findColumnIndexes(ResultSetMetaData metaData, String[] columns) throws SQLException {
+        int[] result = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            for (int j = 1; j <= metaData.getColumnCount(); j++) {
+                if (metaData.getColumnLabel(j).equalsIgnoreCase(columns[i].trim())) {
+                    result[i] = j;
+                    break;
+                }
+            }
+            if (result[i] == 0) {
+                throw new IllegalArgumentException("column " + columns[i] + " is not part of the result");
+            }
+        }
+        return result;
+    }
+
+    private static String compareRow(ResultSet resultSet, int[] columnIndexes, String[] columns, String[] expectedRow) throws SQLException, IOException {
+        StringBuilder result = null;
+        for (int i = 0; i < columnIndexes.length; i++) {
+            Object actual = resultSet.getObject(columnIndexes[i]);
+            if (!matches(actual, expectedRow[i])) {
+                if (result == null) {
+                    result = new StringBuilder();
+                } else {
+                    result.append(", ");
+                }
+                result.append(columns[i].trim()).append(" expected <").append(expectedRow[i])
+                    .append("> but was <").append(toString(actual)).append(">");
+            }
+        }
+        return result == null ? null : result.toString();
+    }
+
+    private static boolean matches(Object actual, String expected) throws SQLException, IOException {
+        if (actual == null || NULL_VALUE.equalsIgnoreCase(expected)) {
+            return actual == null && NULL_VALUE.equalsIgnoreCase(expected);
+        }
+        if (actual instanceof Number) {
+            if (Boolean.TRUE.toString().equalsIgnoreCase(expected) || Boolean.FALSE.toString().equalsIgnoreCase(expected)) {
+                return NumberUtils.toBoolean((Number) actual) == Boolean.parseBoolean(expected);
+            }
+            try {
+                return NumberUtils.toBigDecimal((Number) actual).compareTo(new BigDecimal(expected.trim())) == 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (actual instanceof Boolean) {
+            if ("1".equals(expected) || "0".equals(expected)) {
+                return actual.equals("1".equals(expected));
+            }
+            return actual.equals(Boolean.parseBoolean(expected));
+        }
+        if (actual instanceof java.util.Date) {
+            try {
+                return ((java.util.Date) actual).getTime() == Timestamp.valueOf(expected.trim()).getTime();
+            } catch (IllegalArgumentException e) {
+                try {
+                    return ((java.util.Date) actual).getTime() == java.sql.Date.valueOf(expected.trim()).getTime();
+                } catch (IllegalArgumentException e1) {
+                    return false;
+                }
+            }
+        }
+        return Objects.equals(toString(actual), expected);
+    }
+
+    private static String describeKey(String[] expectedRow, int[] keyIndexes) {
+        List<String> values = new ArrayList<>();
+        for (int keyIndex : keyIndexes) {
+            values.add(expectedRow[keyIndex]);
+        }
+        return Joiner.on(", ").join(values);
+    }
+
+    private static String describeRow(ResultSet resultSet, int[] columnIndexes) throws SQLException, IOException {
+        List<String> values = new ArrayList<>();
+        for (int columnIndex : columnIndexes) {
+            values.add(toString(resultSet.getObject(columnIndex)));
+        }
+        return Joiner.on(", ").join(values);
+    }
+
+    private static String toString(Object value) throws SQLException, IOException {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        if (value instanceof Clob) {
+            try (Reader reader = ((Clob) value).getCharacterStream()) {
+                StringBuilder result = new StringBuilder();
+                char[] buffer = new char[4096];
+                int read;
+                while ((read = reader.read(buffer)) > 0) {
+                    result.append(buffer, 0, read);
+                }
+                return result.toString();
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    private static CSVReader openCsv(String resource) throws IOException {
+        InputStream in = DatasetAssert.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            File file = new File(resource);
+            if (!file.exists()) {
+                throw new IllegalArgumentException("dataset " + resource + " not found");
+            }
+            in = new FileInputStream(file);
+        }
+        return new CSVReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+}
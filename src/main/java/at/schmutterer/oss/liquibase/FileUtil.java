@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -15,6 +17,32 @@ import static org.apache.commons.io.FileUtils.cleanDirectory;
  */
 public class FileUtil {
 
+    public interface FileWriter<E extends Exception> {
+        void write(File file) throws IOException, E;
+    }
+
+    public static void createDirectories(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * lets the writer fill a temporary file next to the target and moves it into place afterwards, so concurrent
+     * readers (e.g. parallel builds) never see a partially written file.
+     */
+    public static <E extends Exception> void writeAtomically(File file, FileWriter<E> writer) throws IOException, E {
+        File directory = file.getAbsoluteFile().getParentFile();
+        createDirectories(directory);
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            writer.write(temporary);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
     public static File unzip(File zipFile) throws IOException {
         File tempDir = File.createTempFile("liquibase-unzip", ".dir");
         tempDir.delete();
@@ -0,0 +1,16 @@
+package at.schmutterer.oss.liquibase;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks public void methods inserting the test data of a {@link MigrationTest}. They are run after the {@code @Before}
+ * methods, but only until their rows are recorded, later test methods get the recorded rows replayed instead (see
+ * {@link RecordedFixture}). Fixture methods must only write to the database and have to commit their inserts.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Fixture {
+}
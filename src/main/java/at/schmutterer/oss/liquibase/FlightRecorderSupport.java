@@ -0,0 +1,20 @@
+package at.schmutterer.oss.liquibase;
+
+/**
+ * Access to the java flight recorder events used by {@link MigrationMetrics}. The implementation lives in
+ * {@code src/main/jfr}, which is only compiled on JDK 11 and later (profile {@code flight-recorder}), so the library
+ * still builds and runs on java 8 builds without {@code jdk.jfr}.
+ */
+interface FlightRecorderSupport {
+
+    String IMPLEMENTATION = "at.schmutterer.oss.liquibase.JfrFlightRecorderSupport";
+
+    PhaseEvent beginPhase(String phase, String testClass, String changeSetIds);
+
+    void emitSummary();
+
+    interface PhaseEvent {
+        void end(int tableCount, int connectionCount);
+    }
+
+}
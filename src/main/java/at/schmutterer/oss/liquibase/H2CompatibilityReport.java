@@ -0,0 +1,109 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.filter.ChangeSetFilterResult;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.visitor.UpdateVisitor;
+import liquibase.database.Database;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.LiquibaseException;
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lists the changesets which can not run on an emulating database (see {@link H2Configurations}): changesets
+ * restricted to other databases by their {@code dbms} attribute and changesets failing on the emulation. Tests for
+ * the listed changesets still need the real database, all others can run in-process.
+ * <p>
+ * Failing changesets are skipped and the walk goes on, so changesets depending on an earlier failure are listed as
+ * well and marked with the most recent failure before them. Changesets marked with {@code ignore} are skipped.
+ */
+@Slf4j
+@Value
+public class H2CompatibilityReport {
+
+    private final List<Entry> incompatibleChangeSets;
+
+    @Value
+    public static class Entry {
+        private final String changeSet;
+        private final String reason;
+    }
+
+    public static H2CompatibilityReport create(LiquibaseConfiguration emulation, List<String> changelogs) throws LiquibaseException, SQLException {
+        ChangelogCollection changelogCollection = ChangelogCollection.forResources(changelogs);
+        List<Entry> result = new ArrayList<>();
+        MigrationTestRunner.clearDatabase(emulation);
+        Database database = LiquibaseUtil.createLiquibaseDatabase(emulation);
+        LockService lockService = LockServiceFactory.getInstance().getLockService(database);
+        lockService.waitForLock();
+        try {
+            ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).init();
+            ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).generateDeploymentId();
+            String lastFailure = null;
+            for (ChangeSet changeSet : changelogCollection.getChangeSets()) {
+                if (changeSet.isIgnore()) {
+                    continue;
+                }
+                ChangeSetFilterResult dbmsResult = new DbmsChangeSetFilter(database).accepts(changeSet);
+                if (!dbmsResult.isAccepted()) {
+                    result.add(new Entry(changeSet.toString(false), dbmsResult.getMessage()));
+                    continue;
+                }
+                try {
+                    new UpdateVisitor(database, null).visit(changeSet, changeSet.getChangeLog(), database, Collections.emptySet());
+                } catch (LiquibaseException e) {
+                    String reason = e.getMessage().replaceAll("\\s+", " ");
+                    if (lastFailure != null) {
+                        reason += " (possibly caused by the failure of " + lastFailure + ")";
+                    }
+                    lastFailure = changeSet.toString(false);
+                    result.add(new Entry(changeSet.toString(false), reason));
+                    rollbackQuietly(database);
+                }
+            }
+        } finally {
+            lockService.releaseLock();
+            LockServiceFactory.getInstance().resetAll();
+            ChangeLogHistoryServiceFactory.getInstance().resetAll();
+            database.close();
+            MigrationTestRunner.clearDatabase(emulation);
+        }
+        return new H2CompatibilityReport(result);
+    }
+
+    public boolean isCompatible() {
+        return incompatibleChangeSets.isEmpty();
+    }
+
+    public void writeTo(File file) throws IOException {
+        FileUtil.createDirectories(file.getAbsoluteFile().getParentFile());
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            writer.println(incompatibleChangeSets.size() + " changesets can not run on the emulation");
+            for (Entry entry : incompatibleChangeSets) {
+                writer.println(entry.getChangeSet() + ": " + entry.getReason());
+            }
+        }
+    }
+
+    private static void rollbackQuietly(Database database) {
+        try {
+            database.rollback();
+        } catch (DatabaseException e) {
+            log.warn("unable to rollback after failed changeset", e);
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package at.schmutterer.oss.liquibase;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Ready made configurations for in-memory H2 databases emulating another database, to run changelogs written for
+ * that database in-process. The databases are tuned for speed: no undo log, no transaction log and no locking, which
+ * is fine for the single threaded migration tests.
+ * <p>
+ * Changesets which cannot run under the emulation are listed by {@link H2CompatibilityReport}.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class H2Configurations {
+
+    public static final String SCHEMA = "PUBLIC";
+
+    public static LiquibaseConfiguration oracle(String name) {
+        return inMemory(name, "Oracle");
+    }
+
+    public static LiquibaseConfiguration mysql(String name) {
+        return inMemory(name, "MySQL");
+    }
+
+    public static LiquibaseConfiguration inMemory(String name, String mode) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name
+            + ";MODE=" + mode
+            + ";DB_CLOSE_DELAY=-1"
+            + ";MV_STORE=TRUE"
+            + ";UNDO_LOG=0"
+            + ";LOG=0"
+            + ";LOCK_MODE=0");
+        return new LiquibaseConfiguration(dataSource, SCHEMA);
+    }
+
+}
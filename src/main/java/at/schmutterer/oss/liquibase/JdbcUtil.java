@@ -0,0 +1,54 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class JdbcUtil {
+
+    public static final int FETCH_SIZE = 1000;
+
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet resultSet) throws SQLException, IOException;
+    }
+
+    /**
+     * identifies the database the connection points to: its url and, for H2, the compatibility mode, which H2 does
+     * not report as part of the url.
+     */
+    public static String describeDatabase(Connection connection) throws SQLException {
+        String url = connection.getMetaData().getURL();
+        if (!connection.getMetaData().getDatabaseProductName().equals("H2")) {
+            return url;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'MODE'")) {
+            return resultSet.next() ? url + ";MODE=" + resultSet.getString(1) : url;
+        }
+    }
+
+    /**
+     * runs the query in a transaction of its own and hands the result to the handler, fetching {@link #FETCH_SIZE}
+     * rows at a time so big results can be read without holding them in memory.
+     */
+    public static <T> T streamQuery(Connection connection, String query, ResultSetHandler<T> handler) throws SQLException, IOException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                return handler.handle(resultSet);
+            }
+        } finally {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+}
@@ -49,7 +49,7 @@ public class LiquibaseUtil {
     }
 
     public static Database createLiquibaseDatabase(LiquibaseConfiguration config) throws DatabaseException, SQLException {
-        JdbcConnection connection = new JdbcConnection(config.getDataSource().getConnection());
+        JdbcConnection connection = new JdbcConnection(MigrationMetrics.getConnection(config.getDataSource()));
         Database result = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(connection);
         result.setDefaultSchemaName(config.getSchema());
         return result;
@@ -0,0 +1,97 @@
+package at.schmutterer.oss.liquibase;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * What a {@link ConcurrentLoad} workload experienced while the migration ran: latencies of the reads and writes,
+ * statements which waited for a lock (longer than the lock wait threshold, until they timed out or were aborted as
+ * deadlock victims) and statements which failed for other reasons (e.g. because a column they use was dropped).
+ */
+@Value
+public class LoadReport {
+
+    private final long migrationNanos;
+    private final Latencies reads;
+    private final Latencies writes;
+    private final long lockWaits;
+    private final long failureCount;
+    private final List<String> failures;
+
+    @Value
+    public static class Latencies {
+        @Getter(AccessLevel.NONE)
+        private final LatencyHistogram histogram;
+
+        static Latencies of(List<LatencyHistogram> histograms) {
+            LatencyHistogram merged = new LatencyHistogram();
+            histograms.forEach(merged::add);
+            return new Latencies(merged);
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        /**
+         * the latency below which the given percentage of the statements finished (nearest rank), 0 without
+         * statements. Latencies are kept in log-scaled buckets, the result is up to 1/16 above the exact value.
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            return unit.convert(histogram.getPercentile(percentile), TimeUnit.NANOSECONDS);
+        }
+
+        public long getMax(TimeUnit unit) {
+            return unit.convert(histogram.getMax(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return getCount() + " statements, p50 " + getPercentile(50, TimeUnit.MILLISECONDS)
+                + "ms, p95 " + getPercentile(95, TimeUnit.MILLISECONDS)
+                + "ms, p99 " + getPercentile(99, TimeUnit.MILLISECONDS)
+                + "ms, max " + getMax(TimeUnit.MILLISECONDS) + "ms";
+        }
+    }
+
+    public void assertPercentileBelow(double percentile, long amount, TimeUnit unit) {
+        assertPercentileBelow("reads", reads, percentile, amount, unit);
+        assertPercentileBelow("writes", writes, percentile, amount, unit);
+    }
+
+    public void assertLockWaitsAtMost(long maximum) {
+        if (lockWaits > maximum) {
+            throw new AssertionError(lockWaits + " workload statements waited for locks during the migration, at most "
+                + maximum + " allowed\n" + this);
+        }
+    }
+
+    public void assertNoFailures() {
+        if (failureCount > 0) {
+            throw new AssertionError(failureCount + " workload statements failed during the migration:\n  "
+                + String.join("\n  ", failures));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "migration took " + TimeUnit.NANOSECONDS.toMillis(migrationNanos) + "ms"
+            + "\nreads: " + reads
+            + "\nwrites: " + writes
+            + "\nlock waits: " + lockWaits
+            + "\nfailures: " + failureCount;
+    }
+
+    private void assertPercentileBelow(String kind, Latencies latencies, double percentile, long amount, TimeUnit unit) {
+        long actual = latencies.getPercentile(percentile, TimeUnit.NANOSECONDS);
+        if (actual >= unit.toNanos(amount)) {
+            throw new AssertionError("p" + percentile + " of the " + kind + " was " + TimeUnit.NANOSECONDS.toMillis(actual)
+                + "ms during the migration, expected below " + unit.toMillis(amount) + "ms\n" + this);
+        }
+    }
+
+}
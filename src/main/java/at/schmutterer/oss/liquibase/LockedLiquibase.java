@@ -0,0 +1,82 @@
+package at.schmutterer.oss.liquibase;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.RuntimeEnvironment;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeLogIterator;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.CountChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.IgnoreChangeSetFilter;
+import liquibase.changelog.filter.LabelChangeSetFilter;
+import liquibase.changelog.filter.ShouldRunChangeSetFilter;
+import liquibase.database.Database;
+import liquibase.database.ObjectQuotingStrategy;
+import liquibase.exception.LiquibaseException;
+import liquibase.lockservice.LockService;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Liquibase running its updates under a changelog lock held by the {@link MigrationTestRunner} for the whole test
+ * class. As long as the lock is held updates neither acquire nor release it and do not reset the liquibase services,
+ * so the changelog history read by the first update is reused by all following ones.
+ * <p>
+ * Without the lock (e.g. after the runner released it) this behaves like a plain {@link Liquibase}.
+ */
+public class LockedLiquibase extends Liquibase {
+
+    private final LockService lockService;
+
+    public LockedLiquibase(String changeLogFile, ResourceAccessor resourceAccessor, Database database, LockService lockService) {
+        super(changeLogFile, resourceAccessor, database);
+        this.lockService = lockService;
+    }
+
+    @Override
+    public void update(Contexts contexts, LabelExpression labelExpression, boolean checkLiquibaseTables) throws LiquibaseException {
+        if (!lockService.hasChangeLogLock()) {
+            super.update(contexts, labelExpression, checkLiquibaseTables);
+            return;
+        }
+        getChangeLogParameters().setContexts(contexts);
+        getChangeLogParameters().setLabels(labelExpression);
+        try {
+            DatabaseChangeLog changeLog = getDatabaseChangeLog();
+            if (checkLiquibaseTables) {
+                checkLiquibaseTables(true, changeLog, contexts, labelExpression);
+            }
+            ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).generateDeploymentId();
+            changeLog.validate(database, contexts, labelExpression);
+            ChangeLogIterator changeLogIterator = getStandardChangelogIterator(contexts, labelExpression, changeLog);
+            changeLogIterator.run(createUpdateVisitor(), new RuntimeEnvironment(database, contexts, labelExpression));
+        } finally {
+            database.setObjectQuotingStrategy(ObjectQuotingStrategy.LEGACY);
+        }
+    }
+
+    @Override
+    public void update(int changesToApply, Contexts contexts, LabelExpression labelExpression) throws LiquibaseException {
+        if (!lockService.hasChangeLogLock()) {
+            super.update(changesToApply, contexts, labelExpression);
+            return;
+        }
+        getChangeLogParameters().setContexts(contexts);
+        getChangeLogParameters().setLabels(labelExpression);
+        DatabaseChangeLog changeLog = getDatabaseChangeLog();
+        checkLiquibaseTables(true, changeLog, contexts, labelExpression);
+        ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).generateDeploymentId();
+        changeLog.validate(database, contexts, labelExpression);
+        ChangeLogIterator changeLogIterator = new ChangeLogIterator(changeLog,
+            new ShouldRunChangeSetFilter(database, isIgnoreClasspathPrefix()),
+            new ContextChangeSetFilter(contexts),
+            new LabelChangeSetFilter(labelExpression),
+            new DbmsChangeSetFilter(database),
+            new IgnoreChangeSetFilter(),
+            new CountChangeSetFilter(changesToApply));
+        changeLogIterator.run(createUpdateVisitor(), new RuntimeEnvironment(database, contexts, labelExpression));
+    }
+
+}
@@ -0,0 +1,116 @@
+package at.schmutterer.oss.liquibase;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import liquibase.Liquibase;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.exception.LiquibaseException;
+
+/**
+ * Steps through the changelog of a test class, starting at the first changeset under test. Injected into fields of
+ * this type annotated with {@link LiquibaseContext}, a new cursor for every test method.
+ * <p>
+ * The position is tracked in memory, so stepping does not need to read the DATABASECHANGELOG or walk the changelog
+ * again. Only changesets which run once are counted as steps, {@code alwaysRun} changesets and changesets excluded by
+ * {@code dbms} or {@code ignore} are run (or skipped) together with them, the same way liquibase does. Changesets
+ * applied behind the back of the cursor (e.g. with {@code liquibase.update}) are not noticed.
+ */
+public class MigrationCursor {
+
+    private final Liquibase liquibase;
+    private final List<ChangeSet> changeSets;
+    private final DbmsChangeSetFilter dbmsFilter;
+    private int position;
+
+    public MigrationCursor(Liquibase liquibase, List<ChangeSet> changeSets, int position) {
+        this.liquibase = liquibase;
+        this.changeSets = changeSets;
+        this.dbmsFilter = new DbmsChangeSetFilter(liquibase.getDatabase());
+        this.position = position;
+    }
+
+    public boolean hasNext() {
+        return findStep(position) != -1;
+    }
+
+    /**
+     * the changeset the next call of {@link #next()} will apply.
+     */
+    public ChangeSet peek() {
+        int next = findStep(position);
+        if (next == -1) {
+            throw new NoSuchElementException("no changesets left after " + describePosition());
+        }
+        return changeSets.get(next);
+    }
+
+    /**
+     * applies the next changeset and returns it.
+     */
+    public ChangeSet next() throws LiquibaseException {
+        ChangeSet result = peek();
+        advanceTo(result.getId());
+        return result;
+    }
+
+    public void advance(int steps) throws LiquibaseException {
+        int target = position;
+        for (int i = 0; i < steps; i++) {
+            int next = findStep(target);
+            if (next == -1) {
+                throw new NoSuchElementException("only " + i + " of " + steps + " changesets left after " + describePosition());
+            }
+            target = next + 1;
+        }
+        apply(target);
+    }
+
+    /**
+     * applies all changesets up to and including the one with the given id.
+     */
+    public void advanceTo(String changeId) throws LiquibaseException {
+        for (int i = position; i < changeSets.size(); i++) {
+            if (changeSets.get(i).getId().equals(changeId)) {
+                apply(i + 1);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("changeset " + changeId + " is not ahead of " + describePosition());
+    }
+
+    private int findStep(int from) {
+        for (int i = from; i < changeSets.size(); i++) {
+            ChangeSet changeSet = changeSets.get(i);
+            if (!changeSet.isAlwaysRun() && isApplicable(changeSet)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void apply(int target) throws LiquibaseException {
+        // the same changesets liquibase considers unrun: all not yet applied and every alwaysRun one before the target
+        int count = 0;
+        for (int i = 0; i < target; i++) {
+            ChangeSet changeSet = changeSets.get(i);
+            if ((i >= position || changeSet.isAlwaysRun()) && isApplicable(changeSet)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            liquibase.update(count, "");
+        }
+        position = target;
+    }
+
+    private boolean isApplicable(ChangeSet changeSet) {
+        return !changeSet.isIgnore() && dbmsFilter.accepts(changeSet).isAccepted();
+    }
+
+    private String describePosition() {
+        return position == 0 ? "the start of the changelog" : changeSets.get(position - 1).toString(false);
+    }
+
+}
@@ -0,0 +1,133 @@
+package at.schmutterer.oss.liquibase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+import com.google.common.base.Joiner;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Counts and times the lifecycle phases of the runners and emits them as java flight recorder events (one per phase
+ * and a periodic summary), so a standard JFR recording of a test run shows where the time goes. Without flight recorder
+ * support in the JVM or in the build (see {@link FlightRecorderSupport}) only the counters are kept.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationMetrics {
+
+    public enum Phase {
+        CLEAR_DATABASE,
+        INIT_LIQUIBASE,
+        REQUIRED_CHANGELOGS,
+        CLEANUP_CHANGELOG,
+        CLEANUP_DATABASE
+    }
+
+    private static final Map<Phase, AtomicLong> COUNTS = new EnumMap<>(Phase.class);
+    private static final Map<Phase, AtomicLong> NANOS = new EnumMap<>(Phase.class);
+    private static final AtomicLong TABLES_CLEANED = new AtomicLong();
+    private static final AtomicLong CONNECTIONS_OPENED = new AtomicLong();
+    private static final ThreadLocal<int[]> THREAD_CONNECTIONS_OPENED = ThreadLocal.withInitial(() -> new int[1]);
+    private static final FlightRecorderSupport FLIGHT_RECORDER;
+
+    static {
+        for (Phase phase : Phase.values()) {
+            COUNTS.put(phase, new AtomicLong());
+            NANOS.put(phase, new AtomicLong());
+        }
+        FLIGHT_RECORDER = loadFlightRecorderSupport();
+    }
+
+    public static Recording start(Phase phase, String testClass, List<String> changeIds) {
+        return new Recording(phase, testClass, changeIds);
+    }
+
+    /**
+     * opens a connection of the data source and counts it for the phases running on the current thread.
+     */
+    public static Connection getConnection(DataSource dataSource) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        CONNECTIONS_OPENED.incrementAndGet();
+        THREAD_CONNECTIONS_OPENED.get()[0]++;
+        return connection;
+    }
+
+    public static long getCount(Phase phase) {
+        return COUNTS.get(phase).get();
+    }
+
+    public static long getTime(Phase phase, TimeUnit unit) {
+        return unit.convert(NANOS.get(phase).get(), TimeUnit.NANOSECONDS);
+    }
+
+    public static long getTablesCleaned() {
+        return TABLES_CLEANED.get();
+    }
+
+    public static long getConnectionsOpened() {
+        return CONNECTIONS_OPENED.get();
+    }
+
+    private static FlightRecorderSupport loadFlightRecorderSupport() {
+        try {
+            return (FlightRecorderSupport) Class.forName(FlightRecorderSupport.IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("java flight recorder is not supported by this jvm or build, only collecting counters", e);
+            return null;
+        }
+    }
+
+    /**
+     * emits the summary immediately (in addition to the periodic ones), e.g. at the end of a suite.
+     */
+    public static void emitSummary() {
+        if (FLIGHT_RECORDER != null) {
+            FLIGHT_RECORDER.emitSummary();
+        }
+    }
+
+    /**
+     * a running phase, to be closed when the phase is finished (also if it failed). Its connection count are the
+     * connections opened by {@link #getConnection(DataSource)} on the same thread while it was running.
+     */
+    public static final class Recording implements AutoCloseable {
+
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final FlightRecorderSupport.PhaseEvent event;
+        private final int connectionsAtStart = THREAD_CONNECTIONS_OPENED.get()[0];
+        private int tableCount;
+
+        private Recording(Phase phase, String testClass, List<String> changeIds) {
+            this.phase = phase;
+            event = FLIGHT_RECORDER == null ? null
+                : FLIGHT_RECORDER.beginPhase(phase.name(), testClass, changeIds == null ? null : Joiner.on(',').join(changeIds));
+        }
+
+        public Recording tables(int count) {
+            tableCount += count;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            COUNTS.get(phase).incrementAndGet();
+            NANOS.get(phase).addAndGet(System.nanoTime() - start);
+            if (phase == Phase.CLEANUP_DATABASE) {
+                TABLES_CLEANED.addAndGet(tableCount);
+            }
+            if (event != null) {
+                event.end(tableCount, THREAD_CONNECTIONS_OPENED.get()[0] - connectionsAtStart);
+            }
+        }
+    }
+
+}
@@ -1,5 +1,9 @@
 package at.schmutterer.oss.liquibase;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -13,14 +17,21 @@ import java.util.Objects;
 import java.util.Optional;
 
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ComputationException;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import liquibase.CatalogAndSchema;
 import liquibase.Liquibase;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
 import liquibase.database.Database;
 import liquibase.exception.LiquibaseException;
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
 import liquibase.resource.ClassLoaderResourceAccessor;
 import liquibase.resource.CompositeResourceAccessor;
 import liquibase.resource.FileSystemResourceAccessor;
@@ -44,8 +55,12 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
     private Liquibase liquibase;
     private List<String> changeIds;
     private Database database;
+    private LockService lockService;
     private final boolean isolated;
     private final ChangelogCollection changelogCollection;
+    private final SnapshotStore snapshotStore;
+    private RecordedFixture recordedFixture;
+    private boolean fixtureCacheChecked;
 
     public MigrationTestRunner(Class<?> testClass) throws InitializationError {
         super(testClass);
@@ -57,6 +72,7 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         }
         this.config = Iterables.getOnlyElement(discoverDatabaseConfigurations(getTestClass()));
         isolated = true;
+        snapshotStore = new SnapshotStore(SnapshotStore.getDefaultDirectory(), this.changelogCollection);
     }
 
     public MigrationTestRunner(Class<?> testClass, ChangelogCollection changelogCollection) throws InitializationError {
@@ -64,6 +80,7 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         this.changelogCollection = changelogCollection;
         this.config = Iterables.getOnlyElement(discoverDatabaseConfigurations(getTestClass()));
         isolated = true;
+        snapshotStore = new SnapshotStore(SnapshotStore.getDefaultDirectory(), this.changelogCollection);
     }
 
     public MigrationTestRunner(Class<?> klass, ChangelogCollection changelogCollection, LiquibaseConfiguration config) throws InitializationError {
@@ -71,6 +88,7 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         this.changelogCollection = changelogCollection;
         this.config = config;
         isolated = false;
+        snapshotStore = new SnapshotStore(SnapshotStore.getDefaultDirectory(), this.changelogCollection);
     }
 
     public static void clearDatabase(LiquibaseConfiguration dataSource) throws LiquibaseException, SQLException {
@@ -86,21 +104,27 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
     }
 
     private void initLiquibase() throws InitializationError {
-        try {
+        try (MigrationMetrics.Recording ignored = MigrationMetrics.start(MigrationMetrics.Phase.INIT_LIQUIBASE, getName(), changeIds)) {
+            boolean storeSnapshot = restoreSnapshotIfPossible();
             database = LiquibaseUtil.createLiquibaseDatabase(config);
+            // held until the class is finished, see LockedLiquibase
+            lockService = LockServiceFactory.getInstance().getLockService(database);
+            lockService.waitForLock();
             List<String> requiredChangelogs = changelogCollection.getRequiredChangelogs(changeIds);
-            for (String o : requiredChangelogs) {
-                Liquibase liquibase1 = new Liquibase(o, new CompositeResourceAccessor(
-                    new ClassLoaderResourceAccessor(),
-                    new FileSystemResourceAccessor()
-                ), database);
-                liquibase1.update("");
+            try (MigrationMetrics.Recording required = MigrationMetrics.start(MigrationMetrics.Phase.REQUIRED_CHANGELOGS, getName(), changeIds)) {
+                for (String o : requiredChangelogs) {
+                    Liquibase liquibase1 = new LockedLiquibase(o, new CompositeResourceAccessor(
+                        new ClassLoaderResourceAccessor(),
+                        new FileSystemResourceAccessor()
+                    ), database, lockService);
+                    liquibase1.update("");
+                }
             }
             Optional<String> ownChangelog = changelogCollection.findResourceForChangeSet(changeIds.stream().findFirst().get());
-            liquibase = new Liquibase(ownChangelog.get(), new CompositeResourceAccessor(
+            liquibase = new LockedLiquibase(ownChangelog.get(), new CompositeResourceAccessor(
                 new ClassLoaderResourceAccessor(),
                 new FileSystemResourceAccessor()
-            ), database);
+            ), database, lockService);
             int changesetIndex = changeIds.stream()
                 .map(id -> {
                     try {
@@ -118,11 +142,57 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
                 );
             }
             liquibase.update(changesetIndex, "");
-        } catch (LiquibaseException | SQLException e) {
+            if (storeSnapshot) {
+                try (Connection connection = MigrationMetrics.getConnection(config.getDataSource())) {
+                    snapshotStore.store(connection, config.getSchema(), getMigrationLevel());
+                }
+            }
+        } catch (LiquibaseException | SQLException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * restores the longest stored snapshot the test class can start from, if snapshots are enabled and the database is
+     * still empty. Returns whether the migrated database should be stored as a snapshot afterwards.
+     */
+    private boolean restoreSnapshotIfPossible() throws SQLException {
+        if (!SnapshotStore.isEnabled()) {
+            return false;
+        }
+        try (Connection connection = MigrationMetrics.getConnection(config.getDataSource())) {
+            if (!getTableNames(connection, config.getSchema()).isEmpty()) {
+                return false;
+            }
+            snapshotStore.restoreLongestPrefix(connection, config.getSchema(), getMigrationLevel());
+            return true;
+        }
+    }
+
+    private int getMigrationLevel() {
+        return changeIds.stream()
+            .map(changelogCollection::indexOf)
+            .filter(index -> index >= 0)
+            .min(Comparator.<Integer>naturalOrder())
+            .orElse(0);
+    }
+
+    private void releaseLiquibase() throws LiquibaseException {
+        if (database == null) {
+            return;
+        }
+        try {
+            if (lockService.hasChangeLogLock()) {
+                lockService.releaseLock();
+            }
+        } finally {
+            LockServiceFactory.getInstance().resetAll();
+            ChangeLogHistoryServiceFactory.getInstance().resetAll();
+            database.close();
+            database = null;
+        }
+    }
+
     public static List<LiquibaseConfiguration> discoverDatabaseConfigurations(TestClass testClass) throws InitializationError {
         List<FrameworkMethod> annotatedMethods = testClass.getAnnotatedMethods(DatabaseConfiguration.class);
         List<LiquibaseConfiguration> dataSources = Lists.transform(annotatedMethods, new Function<FrameworkMethod, LiquibaseConfiguration>() {
@@ -145,6 +215,7 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         if (annotation == null) {
             errors.add(new InitializationError("can only test classes annotated with @MigrationTest"));
         }
+        validatePublicVoidNoArgMethods(Fixture.class, false, errors);
         for (FrameworkMethod method : getTestClass().getAnnotatedMethods(DatabaseConfiguration.class)) {
             validateNoParameters(method, errors);
             validateReturnsDatasource(method, errors);
@@ -179,16 +250,25 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
             @Override
             public void evaluate() throws Throwable {
                 clearDatabaseIfNecessary();
-                initLiquibase();
-                result.evaluate();
+                try {
+                    initLiquibase();
+                    result.evaluate();
+                } finally {
+                    releaseLiquibase();
+                }
                 clearDatabaseIfNecessary();
+                if (isolated) {
+                    MigrationMetrics.emitSummary();
+                }
             }
         };
     }
 
     public void clearDatabaseIfNecessary() throws LiquibaseException, SQLException {
         if (isolated && !Boolean.getBoolean("liquibase.test.skipDelete")) {
-            clearDatabase(config);
+            try (MigrationMetrics.Recording ignored = MigrationMetrics.start(MigrationMetrics.Phase.CLEAR_DATABASE, getName(), changeIds)) {
+                clearDatabase(config);
+            }
         }
     }
 
@@ -197,7 +277,11 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         Object test = super.createTest();
         for (FrameworkField frameworkField : getTestClass().getAnnotatedFields(LiquibaseContext.class)) {
             frameworkField.getField().setAccessible(true);
-            frameworkField.getField().set(test, liquibase);
+            if (MigrationCursor.class.isAssignableFrom(frameworkField.getType())) {
+                frameworkField.getField().set(test, createCursor());
+            } else {
+                frameworkField.getField().set(test, liquibase);
+            }
             frameworkField.getField().setAccessible(false);
         }
         for (FrameworkField frameworkField : getTestClass().getAnnotatedFields(TestDataSource.class)) {
@@ -208,15 +292,69 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         return test;
     }
 
+    private MigrationCursor createCursor() {
+        String ownChangelog = changelogCollection.findResourceForChangeSet(changeIds.get(0)).get();
+        int start = changeIds.stream()
+            .map(id -> changelogCollection.indexOf(ownChangelog, id))
+            .filter(index -> index >= 0)
+            .min(Comparator.<Integer>naturalOrder())
+            .get();
+        return new MigrationCursor(liquibase, changelogCollection.getChangeSets(ownChangelog), start);
+    }
+
     @Override
     protected Statement methodBlock(FrameworkMethod method) {
         return new DatabaseCleanupStatement(super.methodBlock(method));
     }
 
+    @Override
+    protected Statement withBefores(FrameworkMethod method, Object target, Statement statement) {
+        List<FrameworkMethod> fixtureMethods = getTestClass().getAnnotatedMethods(Fixture.class);
+        if (fixtureMethods.isEmpty()) {
+            return super.withBefores(method, target, statement);
+        }
+        return super.withBefores(method, target, new FixtureStatement(statement, fixtureMethods, target));
+    }
+
+    /**
+     * the file the fixture recording is cached in between runs, null if the cache is disabled. The key covers the
+     * database url and schema, the bytecode of the test class hierarchy and the changesets the class starts from.
+     */
+    private File getFixtureCacheFile(Connection connection) throws SQLException, IOException {
+        String directory = System.getProperty("liquibase.test.fixtureCache");
+        if (directory == null) {
+            return null;
+        }
+        Hasher hasher = Hashing.sha256().newHasher()
+            .putString(JdbcUtil.describeDatabase(connection) + "|" + config.getSchema() + "|", StandardCharsets.UTF_8)
+            .putString(changelogCollection.getPrefixChecksum(getMigrationLevel()), StandardCharsets.UTF_8)
+            .putString(Joiner.on(',').join(changeIds), StandardCharsets.UTF_8);
+        for (Class<?> type = getTestClass().getJavaClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            String classFile = type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class";
+            try (InputStream in = type.getResourceAsStream(classFile)) {
+                if (in != null) {
+                    hasher.putBytes(ByteStreams.toByteArray(in));
+                }
+            }
+        }
+        return new File(directory, getTestClass().getJavaClass().getName() + "-" + hasher.hash() + ".ser");
+    }
+
     private void cleanupDatabase(Connection connection) throws SQLException {
-        cleanupChangelog(connection);
+        try (MigrationMetrics.Recording ignored = MigrationMetrics.start(MigrationMetrics.Phase.CLEANUP_CHANGELOG, getName(), changeIds)) {
+            cleanupChangelog(connection);
+        }
+        // the changelog was modified behind the back of liquibase, the cached history is outdated
+        ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).reset();
+        try (MigrationMetrics.Recording recording = MigrationMetrics.start(MigrationMetrics.Phase.CLEANUP_DATABASE, getName(), changeIds)) {
+            cleanupTables(connection, recording);
+        }
+    }
+
+    private void cleanupTables(Connection connection, MigrationMetrics.Recording recording) throws SQLException {
         List<String> tableNames = getTableNames(connection, config.getSchema());
         tableNames.removeAll(CHANGELOG_TABLES);
+        recording.tables(tableNames.size());
         int tries = 5;
         for (int i = 0; i < tries; i++) {
             Iterator<String> tableIterator = tableNames.iterator();
@@ -289,6 +427,62 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
             .replaceAll(",", "','") + "'";
     }
 
+    /**
+     * runs the fixture methods until their rows are recorded and replays the recording afterwards. Rows are only
+     * recorded if the tables were empty before, which is not the case for the first test method if the changesets
+     * insert data.
+     */
+    private class FixtureStatement extends Statement {
+        private final Statement statement;
+        private final List<FrameworkMethod> fixtureMethods;
+        private final Object target;
+
+        public FixtureStatement(Statement statement, List<FrameworkMethod> fixtureMethods, Object target) {
+            this.statement = statement;
+            this.fixtureMethods = fixtureMethods;
+            this.target = target;
+        }
+
+        @Override
+        public void evaluate() throws Throwable {
+            try (Connection connection = MigrationMetrics.getConnection(config.getDataSource())) {
+                if (!fixtureCacheChecked) {
+                    fixtureCacheChecked = true;
+                    File cacheFile = getFixtureCacheFile(connection);
+                    if (cacheFile != null) {
+                        recordedFixture = RecordedFixture.readFrom(cacheFile);
+                    }
+                }
+                if (recordedFixture != null) {
+                    recordedFixture.replay(connection);
+                } else {
+                    runFixtureMethods(connection);
+                }
+            }
+            statement.evaluate();
+        }
+
+        private void runFixtureMethods(Connection connection) throws Throwable {
+            boolean record = !RecordedFixture.containsData(connection, config.getSchema(), CHANGELOG_TABLES);
+            for (FrameworkMethod fixtureMethod : fixtureMethods) {
+                fixtureMethod.invokeExplosively(target);
+            }
+            if (!record) {
+                return;
+            }
+            RecordedFixture captured = RecordedFixture.capture(connection, config.getSchema(), CHANGELOG_TABLES);
+            if (captured.isEmpty()) {
+                log.warn("the fixture of {} did not commit any rows, it will not be replayed", getName());
+                return;
+            }
+            recordedFixture = captured;
+            File cacheFile = getFixtureCacheFile(connection);
+            if (cacheFile != null) {
+                captured.writeTo(cacheFile);
+            }
+        }
+    }
+
     private class DatabaseCleanupStatement extends Statement {
         private final Statement statement;
 
@@ -310,7 +504,7 @@ public class MigrationTestRunner extends BlockJUnit4ClassRunner {
         }
 
         public void doCleanupDatabase(boolean shouldRethrow) throws SQLException {
-            try (Connection connection = config.getDataSource().getConnection()) {
+            try (Connection connection = MigrationMetrics.getConnection(config.getDataSource())) {
                 cleanupDatabase(connection);
             } catch (Exception e) {
                 if (shouldRethrow) {
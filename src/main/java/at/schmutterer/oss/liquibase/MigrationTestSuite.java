@@ -16,10 +16,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Lists;
 import liquibase.exception.LiquibaseException;
@@ -39,12 +42,16 @@ public class MigrationTestSuite extends ParentRunner<Runner> {
 
     private List<Runner> runners = new ArrayList<>();
     private final List<LiquibaseConfiguration> dataSources;
+    private final Map<String, Long> durations = new HashMap<>();
 
     public MigrationTestSuite(Class<?> testClass) throws InitializationError {
         super(testClass);
         final Suite.SuiteClasses annotation = testClass.getAnnotation(Suite.SuiteClasses.class);
-        final List<Class<?>> testClasses = Lists.newArrayList(annotation .value());
+        List<Class<?>> testClasses = Lists.newArrayList(annotation .value());
         ChangelogCollection changelogCollection;
+        dataSources = MigrationTestRunner.discoverDatabaseConfigurations(getTestClass());
+        boolean verifyRollbacks = Boolean.getBoolean("liquibase.test.verifyRollbacks");
+        List<LiquibaseConfiguration> rollbackConfigs = dataSources;
         try {
             List<FrameworkMethod> annotatedMethods = new TestClass(testClass).getAnnotatedMethods(Changelogs.class);
             List<String> resources =  getChangelogResourcesFromAnnotatedMethods(annotatedMethods);
@@ -60,11 +67,24 @@ public class MigrationTestSuite extends ParentRunner<Runner> {
                     .get();
                 return index1.compareTo(index2);
             });
-        } catch (LiquibaseException e) {
+            // without a configuration of its own the suite verifies rollbacks on the one of its first class, which has
+            // to be resolved before the classes are sharded
+            if (verifyRollbacks && rollbackConfigs.isEmpty() && !testClasses.isEmpty()) {
+                rollbackConfigs = MigrationTestRunner.discoverDatabaseConfigurations(new TestClass(testClasses.get(0)));
+            }
+            testClasses = Sharding.select(testClasses, Sharding.loadDurations(Sharding.getDurationsBaseline()),
+                Sharding.getShardIndex(), Sharding.getShardTotal());
+        } catch (LiquibaseException | IOException e) {
             throw new InitializationError(e);
         }
-        dataSources = MigrationTestRunner.discoverDatabaseConfigurations(getTestClass());
-        if (dataSources.isEmpty()) {
+        if (verifyRollbacks) {
+            // the sweep covers the whole changelog, so only the first shard runs it
+            if (Sharding.getShardIndex() == 0) {
+                for (LiquibaseConfiguration config : rollbackConfigs) {
+                    runners.add(new RollbackVerificationRunner(testClass, changelogCollection, config));
+                }
+            }
+        } else if (dataSources.isEmpty()) {
             for (Class<?> aClass : testClasses) {
                 runners.add(new MigrationTestRunner(aClass, changelogCollection));
             }
@@ -107,7 +127,11 @@ public class MigrationTestSuite extends ParentRunner<Runner> {
 
     @Override
     protected void runChild(Runner runner, final RunNotifier notifier) {
+        long start = System.nanoTime();
         runner.run(notifier);
+        if (runner instanceof MigrationTestRunner) {
+            durations.merge(runner.getDescription().getClassName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Long::sum);
+        }
     }
 
     @Override
@@ -119,6 +143,8 @@ public class MigrationTestSuite extends ParentRunner<Runner> {
                 clearAllDatabases();
                 statement.evaluate();
                 clearAllDatabases();
+                Sharding.recordDurations(durations);
+                MigrationMetrics.emitSummary();
             }
         };
     }
@@ -128,7 +154,9 @@ public class MigrationTestSuite extends ParentRunner<Runner> {
             return;
         }
         for (LiquibaseConfiguration dataSource : dataSources) {
-            MigrationTestRunner.clearDatabase(dataSource);
+            try (MigrationMetrics.Recording ignored = MigrationMetrics.start(MigrationMetrics.Phase.CLEAR_DATABASE, getName(), null)) {
+                MigrationTestRunner.clearDatabase(dataSource);
+            }
         }
     }
 
@@ -1,5 +1,8 @@
 package at.schmutterer.oss.liquibase;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
@@ -20,5 +23,28 @@ public final class NumberUtils {
         return number.intValue() == 1;
     }
 
-}
+    /**
+     * converts any numeric type returned by a driver (e.g. BigDecimal for oracle NUMBER, Integer/Long for H2) to a
+     * BigDecimal without trailing zeros, so values of different databases can be compared with equals.
+     */
+    public static BigDecimal toBigDecimal(Number number) {
+        if (number == null) {
+            return null;
+        }
+        BigDecimal result;
+        if (number instanceof BigDecimal) {
+            result = (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            result = new BigDecimal((BigInteger) number);
+        } else if (number instanceof Double || number instanceof Float) {
+            result = new BigDecimal(number.toString());
+        } else {
+            result = BigDecimal.valueOf(number.longValue());
+        }
+        if (result.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        return result.stripTrailingZeros();
+    }
 
+}
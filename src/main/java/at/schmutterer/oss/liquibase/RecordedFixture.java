@@ -0,0 +1,236 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The rows inserted by the {@link Fixture} methods of a test class, recorded once and replayed with batched inserts
+ * for the following test methods. Tables are stored parents first (by their foreign keys), so the rows can be
+ * inserted without violating constraints; tables referencing each other in a cycle are stored in an arbitrary order.
+ * <p>
+ * Values are read as plain java objects (LOBs as strings and byte arrays), so a recording can be serialized and kept on
+ * disk between runs.
+ */
+@Slf4j
+@Value
+public class RecordedFixture implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BATCH_SIZE = 1000;
+
+    private final List<TableData> tables;
+
+    @Value
+    public static class TableData implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String table;
+        private final List<String> columns;
+        private final List<Integer> types;
+        private final List<Object[]> rows;
+    }
+
+    /**
+     * checks whether any of the tables (except the excluded ones) contains a row.
+     */
+    public static boolean containsData(Connection connection, String schema, Collection<String> excludedTables) throws SQLException {
+        for (String table : getTables(connection, schema, excludedTables)) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + table)) {
+                if (resultSet.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * records all rows of all tables except the excluded ones.
+     */
+    public static RecordedFixture capture(Connection connection, String schema, Collection<String> excludedTables) throws SQLException {
+        List<TableData> result = new ArrayList<>();
+        for (String table : sortByForeignKeys(connection, schema, getTables(connection, schema, excludedTables))) {
+            TableData tableData = captureTable(connection, table);
+            if (!tableData.getRows().isEmpty()) {
+                result.add(tableData);
+            }
+        }
+        return new RecordedFixture(result);
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    public void replay(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (TableData table : tables) {
+                replayTable(connection, table);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * reads a recording written by {@link #writeTo(File)}, returns null if there is none or it was written by an
+     * incompatible version.
+     */
+    public static RecordedFixture readFrom(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (RecordedFixture) in.readObject();
+        } catch (InvalidClassException | ClassNotFoundException e) {
+            log.warn("ignoring incompatible fixture recording {}", file, e);
+            return null;
+        }
+    }
+
+    public void writeTo(File file) throws IOException {
+        FileUtil.<IOException>writeAtomically(file, temporary -> {
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temporary))) {
+                out.writeObject(this);
+            }
+        });
+    }
+
+    private static List<String> getTables(Connection connection, String schema, Collection<String> excludedTables) throws SQLException {
+        List<String> tables = MigrationTestRunner.getTableNames(connection, schema);
+        tables.removeAll(excludedTables);
+        return tables;
+    }
+
+    private static List<String> sortByForeignKeys(Connection connection, String schema, List<String> tables) throws SQLException {
+        Map<String, Set<String>> parents = new LinkedHashMap<>();
+        for (String table : tables) {
+            Set<String> tableParents = new HashSet<>();
+            try (ResultSet importedKeys = connection.getMetaData().getImportedKeys(null, schema, table)) {
+                while (importedKeys.next()) {
+                    tableParents.add(importedKeys.getString("PKTABLE_NAME"));
+                }
+            }
+            tableParents.remove(table);
+            tableParents.retainAll(tables);
+            parents.put(table, tableParents);
+        }
+        List<String> result = new ArrayList<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Iterator<Map.Entry<String, Set<String>>> iterator = parents.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Set<String>> entry = iterator.next();
+                if (result.containsAll(entry.getValue())) {
+                    result.add(entry.getKey());
+                    iterator.remove();
+                    progress = true;
+                }
+            }
+        }
+        if (!parents.isEmpty()) {
+            log.warn("tables {} reference each other, their fixture rows may not be insertable", parents.keySet());
+            result.addAll(parents.keySet());
+        }
+        return result;
+    }
+
+    private static TableData captureTable(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table)) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            List<String> columns = new ArrayList<>();
+            List<Integer> types = new ArrayList<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i));
+                types.add(metaData.getColumnType(i));
+            }
+            List<Object[]> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                Object[] row = new Object[columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = readValue(resultSet, i + 1, types.get(i));
+                    if (row[i] != null && !(row[i] instanceof Serializable)) {
+                        throw new IllegalStateException("cannot record " + row[i].getClass().getName() + " values of "
+                            + table + "." + columns.get(i));
+                    }
+                }
+                rows.add(row);
+            }
+            return new TableData(table, columns, types, rows);
+        }
+    }
+
+    private static Object readValue(ResultSet resultSet, int column, int type) throws SQLException {
+        switch (type) {
+            case Types.CLOB:
+            case Types.NCLOB:
+                return resultSet.getString(column);
+            case Types.BLOB:
+                return resultSet.getBytes(column);
+            case Types.DATE:
+                return resultSet.getDate(column);
+            case Types.TIMESTAMP:
+                return resultSet.getTimestamp(column);
+            default:
+                return resultSet.getObject(column);
+        }
+    }
+
+    private static void replayTable(Connection connection, TableData table) throws SQLException {
+        String sql = "INSERT INTO " + table.getTable() + " (" + Joiner.on(", ").join(table.getColumns()) + ") VALUES ("
+            + Joiner.on(", ").join(Collections.nCopies(table.getColumns().size(), "?")) + ")";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int batched = 0;
+            for (Object[] row : table.getRows()) {
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] == null) {
+                        statement.setNull(i + 1, table.getTypes().get(i));
+                    } else {
+                        statement.setObject(i + 1, row[i]);
+                    }
+                }
+                statement.addBatch();
+                if (++batched % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import liquibase.CatalogAndSchema;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.visitor.RollbackVisitor;
+import liquibase.changelog.visitor.UpdateVisitor;
+import liquibase.database.Database;
+import liquibase.diff.DiffGeneratorFactory;
+import liquibase.diff.DiffResult;
+import liquibase.diff.ObjectDifferences;
+import liquibase.diff.compare.CompareControl;
+import liquibase.exception.LiquibaseException;
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
+import liquibase.snapshot.DatabaseSnapshot;
+import liquibase.snapshot.SnapshotControl;
+import liquibase.snapshot.SnapshotGeneratorFactory;
+import liquibase.structure.DatabaseObject;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
+
+/**
+ * Walks all changesets of a {@link ChangelogCollection} once and checks for each of them that its rollback restores
+ * the schema: update, rollback, compare against the snapshot taken before the update and update again. The live
+ * database is reused for the whole walk, every changeset is reported as a single test.
+ * <p>
+ * Used by {@link MigrationTestSuite} instead of the regular test classes if {@code liquibase.test.verifyRollbacks}
+ * is set.
+ */
+@Slf4j
+public class RollbackVerificationRunner extends ParentRunner<ChangeSet> {
+
+    private final ChangelogCollection changelogCollection;
+    private final LiquibaseConfiguration config;
+
+    private Database database;
+    private ChangeSet brokenBy;
+
+    public RollbackVerificationRunner(Class<?> testClass, ChangelogCollection changelogCollection, LiquibaseConfiguration config) throws InitializationError {
+        super(testClass);
+        this.changelogCollection = changelogCollection;
+        this.config = config;
+    }
+
+    @Override
+    protected String getName() {
+        return "rollback verification [" + config.getSchema() + "]";
+    }
+
+    @Override
+    protected List<ChangeSet> getChildren() {
+        return changelogCollection.getChangeSets();
+    }
+
+    @Override
+    protected Description describeChild(ChangeSet child) {
+        return Description.createTestDescription(child.getFilePath(), child.getId() + " (" + child.getAuthor() + ")");
+    }
+
+    @Override
+    protected Statement classBlock(RunNotifier notifier) {
+        final Statement statement = super.classBlock(notifier);
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                MigrationTestRunner.clearDatabase(config);
+                database = LiquibaseUtil.createLiquibaseDatabase(config);
+                LockService lockService = LockServiceFactory.getInstance().getLockService(database);
+                lockService.waitForLock();
+                try {
+                    ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).init();
+                    ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database).generateDeploymentId();
+                    statement.evaluate();
+                } finally {
+                    lockService.releaseLock();
+                    database.close();
+                    brokenBy = null;
+                    if (!Boolean.getBoolean("liquibase.test.skipDelete")) {
+                        MigrationTestRunner.clearDatabase(config);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void runChild(final ChangeSet changeSet, RunNotifier notifier) {
+        Description description = describeChild(changeSet);
+        if (brokenBy != null) {
+            log.error("skipping {}, the database could not be restored after {}", changeSet, brokenBy);
+            notifier.fireTestIgnored(description);
+            return;
+        }
+        if (changeSet.isIgnore() || !new DbmsChangeSetFilter(database).accepts(changeSet).isAccepted()) {
+            notifier.fireTestIgnored(description);
+            return;
+        }
+        if (changeSet.isAlwaysRun()) {
+            try {
+                update(changeSet);
+                notifier.fireTestIgnored(description);
+            } catch (LiquibaseException e) {
+                brokenBy = changeSet;
+                runLeaf(failingStatement(e), description, notifier);
+            }
+            return;
+        }
+        runLeaf(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                verify(changeSet);
+            }
+        }, description, notifier);
+    }
+
+    private void verify(ChangeSet changeSet) throws LiquibaseException, IOException {
+        DatabaseSnapshot before = snapshot();
+        try {
+            update(changeSet);
+        } catch (LiquibaseException e) {
+            brokenBy = changeSet;
+            throw e;
+        }
+        try {
+            new RollbackVisitor(database, null).visit(changeSet, changeSet.getChangeLog(), database, Collections.emptySet());
+        } catch (LiquibaseException e) {
+            throw new AssertionError("rollback of " + changeSet + " failed: " + e.getMessage(), e);
+        }
+        DiffResult diff = DiffGeneratorFactory.getInstance().compare(before, snapshot(), new CompareControl());
+        String problem = diff.areEqual() ? null : "rollback of " + changeSet + " did not restore the schema:" + describe(diff);
+        try {
+            update(changeSet);
+        } catch (LiquibaseException e) {
+            brokenBy = changeSet;
+            throw new AssertionError(problem != null ? problem : "changeset " + changeSet + " could not be applied again after its rollback", e);
+        }
+        if (problem != null) {
+            throw new AssertionError(problem);
+        }
+    }
+
+    private void update(ChangeSet changeSet) throws LiquibaseException {
+        new UpdateVisitor(database, null).visit(changeSet, changeSet.getChangeLog(), database, Collections.emptySet());
+    }
+
+    private DatabaseSnapshot snapshot() throws LiquibaseException {
+        return SnapshotGeneratorFactory.getInstance().createSnapshot(
+            new CatalogAndSchema(null, database.getDefaultSchemaName()),
+            database,
+            new SnapshotControl(database)
+        );
+    }
+
+    private static String describe(DiffResult diff) {
+        StringBuilder result = new StringBuilder();
+        for (DatabaseObject object : diff.getMissingObjects()) {
+            result.append("\n  missing ").append(object.getObjectTypeName()).append(" ").append(object.getName());
+        }
+        for (DatabaseObject object : diff.getUnexpectedObjects()) {
+            result.append("\n  left behind ").append(object.getObjectTypeName()).append(" ").append(object.getName());
+        }
+        for (Map.Entry<DatabaseObject, ObjectDifferences> entry : diff.getChangedObjects().entrySet()) {
+            result.append("\n  changed ").append(entry.getKey().getObjectTypeName()).append(" ").append(entry.getKey().getName())
+                .append(": ").append(entry.getValue().getDifferences());
+        }
+        return result.toString();
+    }
+
+    private static Statement failingStatement(final Throwable throwable) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                throw throwable;
+            }
+        };
+    }
+
+}
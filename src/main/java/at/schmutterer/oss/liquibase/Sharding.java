@@ -0,0 +1,179 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Splits the ordered test classes of a {@link MigrationTestSuite} into contiguous shards, so a suite can be spread
+ * over several JVMs by running it once per shard with {@code liquibase.test.shardIndex} (starting at 0) and
+ * {@code liquibase.test.shardTotal}. Every shard migrates its own database up to its first class.
+ * <p>
+ * The shards are balanced by the durations per class in the baseline file given by {@code liquibase.test.durations}.
+ * Without it every class counts the same and no durations are recorded, otherwise classes without a recorded duration
+ * count as an average one. All shards have to partition the suite from the same input, so sharded runs never change
+ * the baseline: they record their durations in {@code liquibase.test.durationsOutput} (default
+ * {@code target/liquibase-test-durations}) and {@link #main(String[])} merges them into the baseline once all shards
+ * are finished. Runs without sharding update the baseline directly.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Sharding {
+
+    public static final String SHARD_INDEX_PROPERTY = "liquibase.test.shardIndex";
+    public static final String SHARD_TOTAL_PROPERTY = "liquibase.test.shardTotal";
+    public static final String DURATIONS_PROPERTY = "liquibase.test.durations";
+    public static final String DURATIONS_OUTPUT_PROPERTY = "liquibase.test.durationsOutput";
+
+    public static int getShardIndex() {
+        return Integer.getInteger(SHARD_INDEX_PROPERTY, 0);
+    }
+
+    public static int getShardTotal() {
+        return Integer.getInteger(SHARD_TOTAL_PROPERTY, 1);
+    }
+
+    /**
+     * the baseline file, null if durations are not used.
+     */
+    public static File getDurationsBaseline() {
+        String baseline = System.getProperty(DURATIONS_PROPERTY);
+        return baseline == null ? null : new File(baseline);
+    }
+
+    public static File getDurationsOutputDirectory() {
+        return new File(System.getProperty(DURATIONS_OUTPUT_PROPERTY, "target/liquibase-test-durations"));
+    }
+
+    /**
+     * merges the durations recorded by sharded runs into the baseline, to be run after all shards are finished.
+     */
+    public static void main(String[] args) throws IOException {
+        File baseline = getDurationsBaseline();
+        if (baseline == null) {
+            throw new IllegalStateException(DURATIONS_PROPERTY + " has to name the baseline file to merge into");
+        }
+        Map<String, Long> durations = loadDurations(baseline);
+        File[] recordings = getDurationsOutputDirectory().listFiles((dir, name) -> name.endsWith(".properties"));
+        if (recordings != null) {
+            for (File recording : recordings) {
+                durations.putAll(loadDurations(recording));
+            }
+        }
+        storeDurations(baseline, durations);
+    }
+
+    /**
+     * returns the contiguous part of the ordered classes belonging to the given shard.
+     */
+    public static List<Class<?>> select(List<Class<?>> orderedClasses, Map<String, Long> durations, int shardIndex, int shardTotal) {
+        if (shardTotal <= 1) {
+            return orderedClasses;
+        }
+        if (shardIndex < 0 || shardIndex >= shardTotal) {
+            throw new IllegalArgumentException("shard index " + shardIndex + " is not between 0 and " + (shardTotal - 1));
+        }
+        List<List<Class<?>>> shards = partition(orderedClasses, durations, shardTotal);
+        List<Class<?>> covered = new ArrayList<>();
+        shards.forEach(covered::addAll);
+        if (!covered.equals(orderedClasses)) {
+            throw new IllegalStateException("shards " + shards + " do not cover " + orderedClasses + " exactly once");
+        }
+        return shards.get(shardIndex);
+    }
+
+    /**
+     * splits the classes into the given number of shards. Each class belongs to the shard containing the middle of its
+     * cost on the cumulated cost of all classes.
+     */
+    static List<List<Class<?>>> partition(List<Class<?>> orderedClasses, Map<String, Long> durations, int shardTotal) {
+        double[] costs = new double[orderedClasses.size()];
+        double knownTotal = 0;
+        int known = 0;
+        for (Class<?> testClass : orderedClasses) {
+            Long duration = durations.get(testClass.getName());
+            if (duration != null) {
+                knownTotal += duration;
+                known++;
+            }
+        }
+        double defaultCost = known == 0 ? 1 : Math.max(knownTotal / known, 1);
+        double total = 0;
+        for (int i = 0; i < costs.length; i++) {
+            Long duration = durations.get(orderedClasses.get(i).getName());
+            costs[i] = duration == null ? defaultCost : Math.max(duration, 1);
+            total += costs[i];
+        }
+        List<List<Class<?>>> result = new ArrayList<>();
+        for (int i = 0; i < shardTotal; i++) {
+            result.add(new ArrayList<>());
+        }
+        double cumulated = 0;
+        for (int i = 0; i < costs.length; i++) {
+            double middle = cumulated + costs[i] / 2;
+            int shard = Math.min((int) (middle * shardTotal / total), shardTotal - 1);
+            result.get(shard).add(orderedClasses.get(i));
+            cumulated += costs[i];
+        }
+        return result;
+    }
+
+    /**
+     * reads the durations in milliseconds per class name, empty if the file is null or does not exist.
+     */
+    public static Map<String, Long> loadDurations(File file) throws IOException {
+        Map<String, Long> result = new HashMap<>();
+        if (file == null || !file.isFile()) {
+            return result;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            result.put(name, Long.valueOf(properties.getProperty(name)));
+        }
+        return result;
+    }
+
+    /**
+     * records the durations of a finished run: sharded runs write a file per shard to the output directory, other runs
+     * update the baseline. Nothing is recorded if no baseline is configured.
+     */
+    public static void recordDurations(Map<String, Long> durations) throws IOException {
+        if (durations.isEmpty() || getDurationsBaseline() == null) {
+            return;
+        }
+        if (getShardTotal() > 1) {
+            String name = "shard-" + getShardIndex() + "-of-" + getShardTotal() + ".properties";
+            storeDurations(new File(getDurationsOutputDirectory(), name), durations);
+        } else {
+            Map<String, Long> merged = loadDurations(getDurationsBaseline());
+            merged.putAll(durations);
+            storeDurations(getDurationsBaseline(), merged);
+        }
+    }
+
+    private static void storeDurations(File file, Map<String, Long> durations) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        FileUtil.<IOException>writeAtomically(file, temporary -> {
+            try (OutputStream out = new FileOutputStream(temporary)) {
+                properties.store(out, "durations of the migration test classes in ms");
+            }
+        });
+    }
+
+}
@@ -0,0 +1,110 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps database snapshots across builds, so a later run only has to apply the changesets which are not part of a
+ * stored snapshot. A snapshot is stored per migration level and keyed by the checksum of the changesets it contains
+ * ({@link ChangelogCollection#getPrefixChecksum(int)}), so editing a changeset invalidates the snapshots containing it
+ * but keeps the ones before it usable. The key also contains the database url (with its compatibility mode) and the
+ * schema, so different configurations never share snapshots.
+ * <p>
+ * Enabled with {@code liquibase.test.snapshots}, stored in {@code liquibase.test.snapshotDirectory} (default
+ * {@code target/liquibase-test-snapshots}). Only H2 databases are supported, they are dumped with {@code SCRIPT} and
+ * restored with {@code RUNSCRIPT}; for other databases the store does nothing.
+ */
+@Slf4j
+public class SnapshotStore {
+
+    public static final String ENABLED_PROPERTY = "liquibase.test.snapshots";
+    public static final String DIRECTORY_PROPERTY = "liquibase.test.snapshotDirectory";
+
+    private final File directory;
+    private final ChangelogCollection changelogCollection;
+
+    public SnapshotStore(File directory, ChangelogCollection changelogCollection) {
+        this.directory = directory;
+        this.changelogCollection = changelogCollection;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty(DIRECTORY_PROPERTY, "target/liquibase-test-snapshots"));
+    }
+
+    /**
+     * restores the snapshot containing the most of the first {@code maxLength} changesets into the given (empty)
+     * database and returns the number of changesets it contains, 0 if there is none.
+     */
+    public int restoreLongestPrefix(Connection connection, String schema, int maxLength) throws SQLException {
+        if (!isSupported(connection)) {
+            return 0;
+        }
+        for (int length = maxLength; length > 0; length--) {
+            File snapshot = getSnapshotFile(connection, schema, length);
+            if (snapshot.isFile()) {
+                log.info("restoring snapshot of the first {} changesets from {}", length, snapshot);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("RUNSCRIPT FROM '" + toSqlPath(snapshot) + "' COMPRESSION ZIP");
+                    // the snapshot was taken while the test runner held the lock
+                    statement.executeUpdate("UPDATE DATABASECHANGELOGLOCK SET LOCKED = FALSE, LOCKGRANTED = NULL, LOCKEDBY = NULL");
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * stores the database, which has to contain exactly the first {@code length} changesets, unless there is a
+     * snapshot for them already.
+     */
+    public void store(Connection connection, String schema, int length) throws SQLException, IOException {
+        if (length == 0 || !isSupported(connection)) {
+            return;
+        }
+        File snapshot = getSnapshotFile(connection, schema, length);
+        if (snapshot.isFile()) {
+            return;
+        }
+        FileUtil.<SQLException>writeAtomically(snapshot, temporary -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SCRIPT TO '" + toSqlPath(temporary) + "' COMPRESSION ZIP SCHEMA " + schema);
+            }
+        });
+        log.info("stored snapshot of the first {} changesets in {}", length, snapshot);
+    }
+
+    private File getSnapshotFile(Connection connection, String schema, int length) throws SQLException {
+        String key = Hashing.sha256().newHasher()
+            .putString(changelogCollection.getPrefixChecksum(length), StandardCharsets.UTF_8)
+            .putString("|" + JdbcUtil.describeDatabase(connection), StandardCharsets.UTF_8)
+            .putString("|" + schema, StandardCharsets.UTF_8)
+            .hash()
+            .toString();
+        return new File(directory, key + ".zip");
+    }
+
+    private static boolean isSupported(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().equals("H2");
+    }
+
+    private static String toSqlPath(File file) {
+        return file.getAbsolutePath().replace('\\', '/').replace("'", "''");
+    }
+
+}
@@ -0,0 +1,277 @@
+package at.schmutterer.oss.liquibase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import lombok.Value;
+
+/**
+ * Order independent fingerprint of the content of a table: the row count, the sum of the hashes of all rows and per
+ * column the sum of the hashes of all values and the number of null values. The row hashes catch values swapped
+ * between rows, the column hashes show which column changed. Taking a fingerprint before and after a change and
+ * comparing them (see {@link #assertSameData(TableFingerprint, TableFingerprint)}) shows that no rows got lost or
+ * changed, without holding the data in memory.
+ * <p>
+ * On oracle and mysql the fingerprint is calculated by the database with a single aggregate query, on all other
+ * databases the table is streamed once. Fingerprints are only comparable if they are calculated on the same database.
+ * On oracle character and binary values (including LOBs) are hashed by their length and their first 4000 characters
+ * (bytes), differences after that are not noticed.
+ */
+@Value
+public class TableFingerprint {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    // oracle text and binary values are hashed in chunks, which fit into a VARCHAR2 in every character set
+    private static final int ORACLE_CHUNK_SIZE = 1000;
+    private static final int ORACLE_CHUNK_COUNT = 4;
+
+    private final String table;
+    private final long rowCount;
+    private final long rowHashSum;
+    private final List<ColumnFingerprint> columns;
+
+    @Value
+    public static class ColumnFingerprint {
+        private final String column;
+        private final long hashSum;
+        private final long nullCount;
+    }
+
+    /**
+     * calculates the fingerprint of the given columns of the table or of all columns if none are given.
+     */
+    public static TableFingerprint of(DataSource dataSource, String table, String... columns) throws SQLException, IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (columns.length == 0) {
+                columns = findColumns(connection, table);
+            }
+            String productName = connection.getMetaData().getDatabaseProductName();
+            if (productName.equals("Oracle")) {
+                String[] hashes = oracleHashes(connection, table, columns);
+                List<String> rowParts = new ArrayList<>();
+                for (String hash : hashes) {
+                    rowParts.add("NVL(TO_CHAR(" + hash + "), 'NULL')");
+                }
+                return aggregate(connection, table, columns, hashes, "ORA_HASH(" + Joiner.on(" || '|' || ").join(rowParts) + ")");
+            }
+            if (productName.equals("MySQL")) {
+                String[] hashes = new String[columns.length];
+                List<String> rowParts = new ArrayList<>();
+                for (int i = 0; i < columns.length; i++) {
+                    hashes[i] = "CRC32(" + columns[i] + ")";
+                    rowParts.add("COALESCE(" + hashes[i] + ", 'NULL')");
+                }
+                return aggregate(connection, table, columns, hashes, "CRC32(CONCAT_WS('|', " + Joiner.on(", ").join(rowParts) + "))");
+            }
+            return scan(connection, table, columns);
+        }
+    }
+
+    /**
+     * checks that both fingerprints describe the same data. Columns are mapped by their position, so the fingerprint
+     * taken after a change may use renamed columns or even a different table.
+     */
+    public static void assertSameData(TableFingerprint expected, TableFingerprint actual) {
+        if (expected.getColumns().size() != actual.getColumns().size()) {
+            throw new IllegalArgumentException("fingerprints have a different number of columns: "
+                + expected.getColumns().size() + " and " + actual.getColumns().size());
+        }
+        List<String> differences = new ArrayList<>();
+        if (expected.getRowCount() != actual.getRowCount()) {
+            differences.add("row count expected <" + expected.getRowCount() + "> but was <" + actual.getRowCount() + ">");
+        } else if (expected.getRowHashSum() != actual.getRowHashSum()) {
+            differences.add("rows differ");
+        }
+        for (int i = 0; i < expected.getColumns().size(); i++) {
+            ColumnFingerprint expectedColumn = expected.getColumns().get(i);
+            ColumnFingerprint actualColumn = actual.getColumns().get(i);
+            String columns = expected.getTable() + "." + expectedColumn.getColumn() + " -> " + actual.getTable() + "." + actualColumn.getColumn();
+            if (expectedColumn.getNullCount() != actualColumn.getNullCount()) {
+                differences.add(columns + ": null count expected <" + expectedColumn.getNullCount() + "> but was <" + actualColumn.getNullCount() + ">");
+            }
+            if (expectedColumn.getHashSum() != actualColumn.getHashSum()) {
+                differences.add(columns + ": values differ");
+            }
+        }
+        if (!differences.isEmpty()) {
+            throw new AssertionError("data of " + expected.getTable() + " was not preserved in " + actual.getTable() + ":\n  "
+                + Joiner.on("\n  ").join(differences));
+        }
+    }
+
+    private static String[] findColumns(Connection connection, String table) throws SQLException {
+        try (java.sql.Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            String[] result = new String[metaData.getColumnCount()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = metaData.getColumnName(i + 1);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * hash expressions per column. Values are converted to text with explicit formats, so the hashes neither depend on
+     * the NLS settings of the session nor change when a migration only changes the column type, e.g. from CLOB to
+     * VARCHAR2 or from BLOB to RAW.
+     */
+    private static String[] oracleHashes(Connection connection, String table, String[] columns) throws SQLException {
+        try (java.sql.Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT " + Joiner.on(", ").join(columns) + " FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            String[] result = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                result[i] = "ORA_HASH(" + oracleText(columns[i], metaData.getColumnType(i + 1)) + ")";
+            }
+            return result;
+        }
+    }
+
+    private static String oracleText(String column, int type) {
+        switch (type) {
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                return "TO_CHAR(CAST(" + column + " AS TIMESTAMP), 'YYYY-MM-DD HH24:MI:SS.FF9')";
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return "TO_CHAR(" + column + ", 'TM9', 'NLS_NUMERIC_CHARACTERS=''.,''')";
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return oracleChunks(column, "LENGTH(%s)", "SUBSTR(%s, %d, " + ORACLE_CHUNK_SIZE + ")");
+            case Types.CLOB:
+            case Types.NCLOB:
+                return oracleChunks(column, "DBMS_LOB.GETLENGTH(%s)", "DBMS_LOB.SUBSTR(%s, " + ORACLE_CHUNK_SIZE + ", %d)");
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return oracleChunks(column, "UTL_RAW.LENGTH(%s)", "SUBSTR(RAWTOHEX(%s), %d * 2 - 1, " + 2 * ORACLE_CHUNK_SIZE + ")");
+            case Types.BLOB:
+                return oracleChunks(column, "DBMS_LOB.GETLENGTH(%s)", "RAWTOHEX(DBMS_LOB.SUBSTR(%s, " + ORACLE_CHUNK_SIZE + ", %d))");
+            default:
+                return column;
+        }
+    }
+
+    /**
+     * the length and the hashes of the first chunks of the value, null for null values. The formats get the column and
+     * (for the chunks) the position of the first character or byte.
+     */
+    private static String oracleChunks(String column, String lengthFormat, String chunkFormat) {
+        StringBuilder result = new StringBuilder("CASE WHEN ").append(column).append(" IS NULL THEN NULL ELSE TO_CHAR(")
+            .append(String.format(lengthFormat, column)).append(")");
+        for (int i = 0; i < ORACLE_CHUNK_COUNT; i++) {
+            result.append(" || ':' || ORA_HASH(").append(String.format(chunkFormat, column, i * ORACLE_CHUNK_SIZE + 1)).append(")");
+        }
+        return result.append(" END").toString();
+    }
+
+    /**
+     * sums the hashes of the columns and the rows. The row hash has to combine the column hashes in mapped order, with a
+     * marker for nulls, which would vanish from a concatenation otherwise.
+     */
+    private static TableFingerprint aggregate(Connection connection, String table, String[] columns, String[] hashes, String rowHash) throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT COUNT(*), SUM(").append(rowHash).append(")");
+        for (int i = 0; i < columns.length; i++) {
+            query.append(", SUM(").append(hashes[i]).append(")")
+                .append(", COUNT(*) - COUNT(").append(columns[i]).append(")");
+        }
+        query.append(" FROM ").append(table);
+        try (java.sql.Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query.toString())) {
+            resultSet.next();
+            List<ColumnFingerprint> result = new ArrayList<>();
+            for (int i = 0; i < columns.length; i++) {
+                result.add(new ColumnFingerprint(columns[i], toLong(resultSet.getObject(3 + 2 * i)), resultSet.getLong(4 + 2 * i)));
+            }
+            return new TableFingerprint(table, resultSet.getLong(1), toLong(resultSet.getObject(2)), result);
+        }
+    }
+
+    private static long toLong(Object hashSum) {
+        return hashSum == null ? 0 : NumberUtils.toBigDecimal((Number) hashSum).longValue();
+    }
+
+    private static TableFingerprint scan(Connection connection, String table, String[] columns) throws SQLException, IOException {
+        return JdbcUtil.streamQuery(connection, "SELECT " + Joiner.on(", ").join(columns) + " FROM " + table, resultSet -> {
+            long rowCount = 0;
+            long rowHashSum = 0;
+            long[] hashSums = new long[columns.length];
+            long[] nullCounts = new long[columns.length];
+            while (resultSet.next()) {
+                rowCount++;
+                Hasher rowHasher = HASH_FUNCTION.newHasher();
+                for (int i = 0; i < columns.length; i++) {
+                    Object value = resultSet.getObject(i + 1);
+                    if (value == null) {
+                        nullCounts[i]++;
+                        rowHasher.putInt(-1);
+                    } else {
+                        String normalized = normalize(value);
+                        // the sums overflow on purpose, they stay order independent anyway
+                        hashSums[i] += HASH_FUNCTION.hashString(normalized, StandardCharsets.UTF_8).asLong();
+                        rowHasher.putInt(normalized.length()).putString(normalized, StandardCharsets.UTF_8);
+                    }
+                }
+                rowHashSum += rowHasher.hash().asLong();
+            }
+            List<ColumnFingerprint> result = new ArrayList<>();
+            for (int i = 0; i < columns.length; i++) {
+                result.add(new ColumnFingerprint(columns[i], hashSums[i], nullCounts[i]));
+            }
+            return new TableFingerprint(table, rowCount, rowHashSum, result);
+        });
+    }
+
+    private static String normalize(Object value) throws SQLException, IOException {
+        if (value instanceof Number) {
+            return NumberUtils.toBigDecimal((Number) value).toPlainString();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "1" : "0";
+        }
+        if (value instanceof java.util.Date) {
+            return String.valueOf(((java.util.Date) value).getTime());
+        }
+        if (value instanceof byte[]) {
+            return BaseEncoding.base16().encode((byte[]) value);
+        }
+        if (value instanceof Blob) {
+            return BaseEncoding.base16().encode(ByteStreams.toByteArray(((Blob) value).getBinaryStream()));
+        }
+        if (value instanceof Clob) {
+            try (Reader reader = ((Clob) value).getCharacterStream()) {
+                return CharStreams.toString(reader);
+            }
+        }
+        return String.valueOf(value);
+    }
+
+}
@@ -0,0 +1,53 @@
+package at.schmutterer.oss.liquibase;
+
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * {@link FlightRecorderSupport} emitting {@link MigrationPhaseEvent} and {@link MigrationSummaryEvent}, loaded by
+ * {@link MigrationMetrics} if the classes are available.
+ */
+class JfrFlightRecorderSupport implements FlightRecorderSupport {
+
+    JfrFlightRecorderSupport() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("java flight recorder is not available");
+        }
+        FlightRecorder.addPeriodicEvent(MigrationSummaryEvent.class, this::emitSummary);
+    }
+
+    @Override
+    public PhaseEvent beginPhase(String phase, String testClass, String changeSetIds) {
+        MigrationPhaseEvent event = new MigrationPhaseEvent();
+        event.phase = phase;
+        event.testClass = testClass;
+        event.changeSetIds = changeSetIds;
+        event.begin();
+        return (tableCount, connectionCount) -> {
+            event.end();
+            event.tableCount = tableCount;
+            event.connectionCount = connectionCount;
+            event.commit();
+        };
+    }
+
+    @Override
+    public void emitSummary() {
+        MigrationSummaryEvent event = new MigrationSummaryEvent();
+        event.clearDatabaseCount = MigrationMetrics.getCount(MigrationMetrics.Phase.CLEAR_DATABASE);
+        event.clearDatabaseTime = MigrationMetrics.getTime(MigrationMetrics.Phase.CLEAR_DATABASE, TimeUnit.MILLISECONDS);
+        event.initLiquibaseCount = MigrationMetrics.getCount(MigrationMetrics.Phase.INIT_LIQUIBASE);
+        event.initLiquibaseTime = MigrationMetrics.getTime(MigrationMetrics.Phase.INIT_LIQUIBASE, TimeUnit.MILLISECONDS);
+        event.requiredChangelogsCount = MigrationMetrics.getCount(MigrationMetrics.Phase.REQUIRED_CHANGELOGS);
+        event.requiredChangelogsTime = MigrationMetrics.getTime(MigrationMetrics.Phase.REQUIRED_CHANGELOGS, TimeUnit.MILLISECONDS);
+        event.cleanupChangelogCount = MigrationMetrics.getCount(MigrationMetrics.Phase.CLEANUP_CHANGELOG);
+        event.cleanupChangelogTime = MigrationMetrics.getTime(MigrationMetrics.Phase.CLEANUP_CHANGELOG, TimeUnit.MILLISECONDS);
+        event.cleanupDatabaseCount = MigrationMetrics.getCount(MigrationMetrics.Phase.CLEANUP_DATABASE);
+        event.cleanupDatabaseTime = MigrationMetrics.getTime(MigrationMetrics.Phase.CLEANUP_DATABASE, TimeUnit.MILLISECONDS);
+        event.tablesCleaned = MigrationMetrics.getTablesCleaned();
+        event.connectionsOpened = MigrationMetrics.getConnectionsOpened();
+        event.commit();
+    }
+
+}
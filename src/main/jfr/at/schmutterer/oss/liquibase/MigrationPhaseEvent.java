@@ -0,0 +1,37 @@
+package at.schmutterer.oss.liquibase;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single lifecycle phase of {@link MigrationTestRunner} or {@link MigrationTestSuite},
+ * created through {@link MigrationMetrics#start(MigrationMetrics.Phase, String, java.util.List)}.
+ */
+@Name("at.schmutterer.oss.liquibase.MigrationPhase")
+@Label("Migration Test Phase")
+@Category({"Liquibase Test"})
+@StackTrace(false)
+public class MigrationPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Test Class")
+    String testClass;
+
+    @Label("Changeset Ids")
+    String changeSetIds;
+
+    @Label("Table Count")
+    @Description("Number of tables handled by the phase")
+    int tableCount;
+
+    @Label("Connection Count")
+    @Description("Number of JDBC connections opened by the phase")
+    int connectionCount;
+
+}
@@ -0,0 +1,62 @@
+package at.schmutterer.oss.liquibase;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Periodic flight recorder event with the counters collected by {@link MigrationMetrics} since the start of the JVM.
+ */
+@Name("at.schmutterer.oss.liquibase.MigrationSummary")
+@Label("Migration Test Summary")
+@Category({"Liquibase Test"})
+@Period("10 s")
+@StackTrace(false)
+public class MigrationSummaryEvent extends Event {
+
+    @Label("Clear Database Count")
+    long clearDatabaseCount;
+
+    @Label("Clear Database Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long clearDatabaseTime;
+
+    @Label("Init Liquibase Count")
+    long initLiquibaseCount;
+
+    @Label("Init Liquibase Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long initLiquibaseTime;
+
+    @Label("Required Changelogs Count")
+    long requiredChangelogsCount;
+
+    @Label("Required Changelogs Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long requiredChangelogsTime;
+
+    @Label("Cleanup Changelog Count")
+    long cleanupChangelogCount;
+
+    @Label("Cleanup Changelog Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long cleanupChangelogTime;
+
+    @Label("Cleanup Database Count")
+    long cleanupDatabaseCount;
+
+    @Label("Cleanup Database Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long cleanupDatabaseTime;
+
+    @Label("Tables Cleaned")
+    long tablesCleaned;
+
+    @Label("Connections Opened")
+    long connectionsOpened;
+
+}